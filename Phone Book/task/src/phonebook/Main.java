@@ -1,13 +1,37 @@
 package phonebook;
 
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.text.Collator;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
 import java.util.Scanner;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 // This program imports a large directory containing names and phone numbers
 // It uses various algorithms to sort and search the data
@@ -46,6 +70,28 @@ public class Main {
         // fill and search a hash table
         searchManager.setSearchMethod(SearchType.HASH);
         searchManager.runListSearch(directory, people);
+
+        // optionally split a fresh directory into shards:
+        // --shards <n> [--range] [--processes]
+        int shardCount = 0;
+        PartitionType partitionType = PartitionType.HASH;
+        boolean separateProcesses = false;
+        for (int i = 0; i < args.length; i++) {
+            if ("--shards".equals(args[i]) && i + 1 < args.length) {
+                shardCount = Integer.parseInt(args[++i]);
+            } else if ("--range".equals(args[i])) {
+                partitionType = PartitionType.RANGE;
+            } else if ("--processes".equals(args[i])) {
+                separateProcesses = true;
+            }
+        }
+
+        if (shardCount > 0) {
+            try (ShardedDirectory sharded = new ShardedDirectory(
+                    new Directory(directoryPath), shardCount, partitionType, separateProcesses)) {
+                searchManager.runListSearch(sharded, people);
+            }
+        }
     }
 
     public static List<Person> getPeopleFromFile(String filePath) {
@@ -188,18 +234,140 @@ class SearchManager {
         return min + " min. " + seconds + " sec. "
                 + milliseconds + " ms.";
     }
+
+    public void runListSearch(ShardedDirectory directory, List<Person> people) {
+
+        System.out.println("\nStart searching (" + directory.description() + ")...");
+
+        // build shards in parallel
+        long buildTimeStart = System.currentTimeMillis();
+        directory.build();
+        long buildTimeEnd = System.currentTimeMillis();
+
+        // route each person to its owning shard
+        long searchTimeStart = System.currentTimeMillis();
+        int countFound = directory.countListed(people);
+        long searchTimeEnd = System.currentTimeMillis();
+
+        System.out.printf("Found %d / %d entries. Time taken: %s\n", countFound, people.size(),
+                timeTakenString(buildTimeEnd - buildTimeStart + searchTimeEnd - searchTimeStart));
+        System.out.printf("Creating time: %s\n", timeTakenString(buildTimeEnd - buildTimeStart));
+        System.out.printf("Searching time: %s\n", timeTakenString(searchTimeEnd - searchTimeStart));
+    }
 } // end SearchManager
 
 class Person {
     private final String name;
+    private byte[] sortKey;
 
     public Person(String name) {
         this.name = name;
     }
 
+    public Person(String name, byte[] sortKey) {
+        this.name = name;
+        this.sortKey = sortKey;
+    }
+
     public String getName() {
         return name;
     }
+
+    // computed on first use, so only sorts and searches that compare
+    // names pay for the key, and only once per name
+    public byte[] getSortKey() {
+        if (sortKey == null) {
+            sortKey = NameKey.of(name);
+        }
+        return sortKey;
+    }
+}
+
+// Collation keys are computed once per name so that sorting and searching
+// compare plain bytes instead of asking the Collator every time.
+// Primary order ignores case and accents; accents, then case, break ties.
+class NameKey {
+    // a RuleBasedCollator locks on every key, so shards sorting in
+    // parallel each get their own copy
+    private static final ThreadLocal<Collator> collator = ThreadLocal.withInitial(NameKey::newCollator);
+
+    // weight of unaccented, lowercase letters, the lowest after the separator
+    private static final int DEFAULT_WEIGHT = 1;
+    private static final int LEVEL_SEPARATOR = 0;
+
+    private static Collator newCollator() {
+        Collator collator = Collator.getInstance();
+        collator.setStrength(Collator.TERTIARY);
+        collator.setDecomposition(Collator.CANONICAL_DECOMPOSITION);
+        return collator;
+    }
+
+    // The Collator's key is a run of 16-bit weights per level, with zero
+    // between levels. Most weights fit in a byte and the accent and case
+    // levels are mostly default weights, so this re-encodes every weight in
+    // as few bytes as keep the order, and drops the default weights that end
+    // the accent and case levels (names that differ only there tie on that
+    // level and the next one decides).
+    public static byte[] of(String name) {
+        byte[] raw = collator.get().getCollationKey(name).toByteArray();
+        byte[] key = new byte[raw.length + raw.length / 2];
+        int length = 0;
+        int level = 0;
+        int pendingDefaults = 0;
+
+        for (int i = 0; i + 1 < raw.length; i += 2) {
+            int weight = (raw[i] & 0xff) << 8 | raw[i + 1] & 0xff;
+            if (weight == LEVEL_SEPARATOR) {
+                key[length++] = LEVEL_SEPARATOR;
+                level++;
+                pendingDefaults = 0;
+            } else if (level > 0 && weight == DEFAULT_WEIGHT) {
+                pendingDefaults++; // only kept if a different weight follows
+            } else {
+                for (; pendingDefaults > 0; pendingDefaults--) {
+                    key[length++] = DEFAULT_WEIGHT;
+                }
+                length = append(key, length, weight);
+            }
+        }
+        return Arrays.copyOf(key, length);
+    }
+
+    // 1 byte below 0x80, 2 bytes led by 0x80-0xbf below 0x4000, else 3 bytes
+    private static int append(byte[] key, int length, int weight) {
+        if (weight < 0x80) {
+            key[length++] = (byte) weight;
+        } else if (weight < 0x4000) {
+            key[length++] = (byte) (0x80 | weight >> 8);
+            key[length++] = (byte) weight;
+        } else {
+            key[length++] = (byte) 0xc0;
+            key[length++] = (byte) (weight >> 8);
+            key[length++] = (byte) weight;
+        }
+        return length;
+    }
+
+    // the letters-only level of the key: case, accents and punctuation
+    // don't count, so "ann" is a prefix of both "Anna" and "Ånn-Marie"
+    public static byte[] primaryOf(String text) {
+        byte[] key = of(text);
+        int length = 0;
+        while (length < key.length && key[length] != LEVEL_SEPARATOR) {
+            int lead = key[length] & 0xff;
+            length += lead < 0x80 ? 1 : lead < 0xc0 ? 2 : 3;
+        }
+        return Arrays.copyOf(key, length);
+    }
+
+    public static int compare(byte[] a, byte[] b) {
+        return Arrays.compareUnsigned(a, b);
+    }
+
+    public static boolean startsWith(byte[] key, byte[] prefix) {
+        return key.length >= prefix.length
+                && Arrays.equals(key, 0, prefix.length, prefix, 0, prefix.length);
+    }
 }
 
 class Entry {
@@ -219,8 +387,12 @@ class Entry {
         return person.getName();
     }
 
+    public byte[] getSortKey() {
+        return person.getSortKey();
+    }
+
     public int compareName(Entry entry) {
-        return person.getName().compareTo(entry.getName());
+        return NameKey.compare(getSortKey(), entry.getSortKey());
     }
 }
 
@@ -243,6 +415,10 @@ class Directory {
         }
     }
 
+    public Directory(List<Entry> entries) {
+        this.entries = entries;
+    }
+
     public List<Entry> getEntries() {
         return entries;
     }
@@ -309,7 +485,25 @@ class BinarySearch implements SearchMethod {
     public boolean isListed(Directory directory, Person person) {
 
         List<Entry> list = directory.getEntries();
-        return binarySearch(list, person, 0, list.size() - 1) >= 0;
+        int index = binarySearch(list, person, 0, list.size() - 1);
+        return index >= 0 && equalKeyRunContains(list, person, index);
+    }
+
+    // names can share a sort key without being equal (e.g. differently
+    // composed accents), so check every entry of the run for the exact name
+    public static boolean equalKeyRunContains(List<Entry> list, Person person, int index) {
+        for (int i = index; i >= 0 && NameKey.compare(list.get(i).getSortKey(), person.getSortKey()) == 0; i--) {
+            if (list.get(i).getName().equals(person.getName())) {
+                return true;
+            }
+        }
+        for (int i = index + 1; i < list.size()
+                && NameKey.compare(list.get(i).getSortKey(), person.getSortKey()) == 0; i++) {
+            if (list.get(i).getName().equals(person.getName())) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private int binarySearch(List<Entry> list, Person person, int left, int right) {
@@ -319,7 +513,7 @@ class BinarySearch implements SearchMethod {
         }
 
         int mid = left + (right - left) / 2; // middle
-        int compare = list.get(mid).getName().compareTo(person.getName());
+        int compare = NameKey.compare(list.get(mid).getSortKey(), person.getSortKey());
         if (compare == 0) {
             return mid;
         } else if (compare < 0) { // search right
@@ -373,7 +567,7 @@ class JumpSearch implements SearchMethod {
         while (currentRight < list.size() - 1) {
             currentRight = Math.min(list.size() - 1, currentRight + jumpLength);
 
-            if (list.get(currentRight).getName().compareTo(person.getName()) >= 0) {
+            if (NameKey.compare(list.get(currentRight).getSortKey(), person.getSortKey()) >= 0) {
                 break; // possible block found
             }
 
@@ -381,11 +575,17 @@ class JumpSearch implements SearchMethod {
         }
 
         if ((currentRight == list.size() - 1) &&
-                person.getName().compareTo(list.get(currentRight).getName()) > 0) {
+                NameKey.compare(person.getSortKey(), list.get(currentRight).getSortKey()) > 0) {
             return false; // beyond scope
         }
 
-        return backwardSearch(list, person, prevRight, currentRight);
+        if (backwardSearch(list, person, prevRight, currentRight)) {
+            return true;
+        }
+
+        // the run of names sharing the key may go on past the block
+        return NameKey.compare(list.get(currentRight).getSortKey(), person.getSortKey()) == 0
+                && BinarySearch.equalKeyRunContains(list, person, currentRight);
     }
 
     public static boolean backwardSearch(List<Entry> list, Person person,
@@ -447,12 +647,12 @@ class QuickSort extends SortMethod {
 
     private static int partition(Directory directory, int left, int right) {
         List<Entry> list = directory.getEntries();
-        String pivot = list.get(right).getName();
+        byte[] pivot = list.get(right).getSortKey();
         int partitionIndex = left;
 
         // swap smaller with larger values
         for (int i = left; i < right; i++) {
-            if (list.get(i).getName().compareTo(pivot) < 0) {
+            if (NameKey.compare(list.get(i).getSortKey(), pivot) < 0) {
                 directory.swap(i, partitionIndex);
                 partitionIndex++;
             }
@@ -497,6 +697,198 @@ class HashSort extends SortMethod {
     }
 }
 
+// Multikey quicksort over the name sort keys: each partition step looks at
+// a single key byte, so shared name prefixes are never compared twice.
+class RadixSort extends SortMethod {
+    private static final int INSERTION_SORT_CUTOFF = 16;
+    private static final int FORK_CUTOFF = 8192;
+    private static final int END_OF_KEY = -1;
+
+    public void sort(Directory directory, long allowedTime) {
+        List<Entry> list = directory.getEntries();
+        Entry[] entries = list.toArray(new Entry[0]);
+
+        // keep the keys next to each other instead of behind every entry
+        byte[][] keys = new byte[entries.length][];
+        for (int i = 0; i < entries.length; i++) {
+            keys[i] = entries[i].getSortKey();
+        }
+
+        // bucketing only pays off when the buckets are worth forking
+        ForkJoinPool.commonPool().invoke(entries.length > FORK_CUTOFF
+                ? new BucketTask(entries, keys)
+                : new MultikeyTask(entries, keys, 0, entries.length, 0));
+
+        for (int i = 0; i < entries.length; i++) {
+            list.set(i, entries[i]);
+        }
+        directory.setSorted(true);
+    }
+
+    private static int byteAt(byte[] key, int depth) {
+        return depth < key.length ? key[depth] & 0xff : END_OF_KEY;
+    }
+
+    // distribute on the first key byte, then sort every bucket in parallel
+    private static class BucketTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Entry[] entries;
+        private final byte[][] keys;
+
+        BucketTask(Entry[] entries, byte[][] keys) {
+            this.entries = entries;
+            this.keys = keys;
+        }
+
+        @Override
+        protected void compute() {
+            // bucket 0 holds empty keys, bucket b + 1 holds first byte b
+            int[] starts = new int[258];
+            for (byte[] key : keys) {
+                starts[byteAt(key, 0) + 2]++;
+            }
+            for (int b = 1; b < starts.length; b++) {
+                starts[b] += starts[b - 1];
+            }
+
+            Entry[] entryBuckets = new Entry[entries.length];
+            byte[][] keyBuckets = new byte[keys.length][];
+            int[] next = starts.clone();
+            for (int i = 0; i < keys.length; i++) {
+                int to = next[byteAt(keys[i], 0) + 1]++;
+                entryBuckets[to] = entries[i];
+                keyBuckets[to] = keys[i];
+            }
+            System.arraycopy(entryBuckets, 0, entries, 0, entries.length);
+            System.arraycopy(keyBuckets, 0, keys, 0, keys.length);
+
+            List<MultikeyTask> tasks = new ArrayList<>();
+            for (int b = 1; b < starts.length - 1; b++) {
+                if (starts[b + 1] - starts[b] > 1) {
+                    tasks.add(new MultikeyTask(entries, keys, starts[b], starts[b + 1], 1));
+                }
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    // sort entries[left, right) whose keys agree on the first 'depth' bytes
+    private static class MultikeyTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Entry[] entries;
+        private final byte[][] keys;
+        private final int left;
+        private final int right;
+        private final int depth;
+
+        MultikeyTask(Entry[] entries, byte[][] keys, int left, int right, int depth) {
+            this.entries = entries;
+            this.keys = keys;
+            this.left = left;
+            this.right = right;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            sort(left, right, depth);
+        }
+
+        private void sort(int left, int right, int depth) {
+            if (right - left <= INSERTION_SORT_CUTOFF) {
+                insertionSort(left, right, depth);
+                return;
+            }
+
+            // median of three as the pivot byte, moved to the front
+            int mid = left + (right - left) / 2;
+            swap(left, medianOfThree(left, mid, right - 1, depth));
+            int pivot = byteAt(keys[left], depth);
+
+            // three-way partition: [left, less) < pivot, [less, greater] == pivot
+            int less = left;
+            int greater = right - 1;
+            int i = left + 1;
+            while (i <= greater) {
+                int b = byteAt(keys[i], depth);
+                if (b < pivot) {
+                    swap(less++, i++);
+                } else if (b > pivot) {
+                    swap(i, greater--);
+                } else {
+                    i++;
+                }
+            }
+
+            List<MultikeyTask> forks = new ArrayList<>();
+            sortOrFork(left, less, depth, forks);
+            if (pivot != END_OF_KEY) {
+                sortOrFork(less, greater + 1, depth + 1, forks);
+            }
+            sortOrFork(greater + 1, right, depth, forks);
+
+            // newest forks are on top of this worker's deque, join them first
+            for (int f = forks.size() - 1; f >= 0; f--) {
+                forks.get(f).join();
+            }
+        }
+
+        // large ranges are forked at once, so idle workers can steal them
+        // while this one sorts the small ranges itself
+        private void sortOrFork(int left, int right, int depth, List<MultikeyTask> forks) {
+            if (right - left > FORK_CUTOFF) {
+                MultikeyTask task = new MultikeyTask(entries, keys, left, right, depth);
+                task.fork();
+                forks.add(task);
+            } else if (right - left > 1) {
+                sort(left, right, depth);
+            }
+        }
+
+        private int medianOfThree(int a, int b, int c, int depth) {
+            int x = byteAt(keys[a], depth);
+            int y = byteAt(keys[b], depth);
+            int z = byteAt(keys[c], depth);
+            if (x < y) {
+                return y < z ? b : (x < z ? c : a);
+            }
+            return x < z ? a : (y < z ? c : b);
+        }
+
+        private void insertionSort(int left, int right, int depth) {
+            for (int i = left + 1; i < right; i++) {
+                Entry entry = entries[i];
+                byte[] key = keys[i];
+                int j = i - 1;
+                while (j >= left && compareFrom(keys[j], key, depth) > 0) {
+                    entries[j + 1] = entries[j];
+                    keys[j + 1] = keys[j];
+                    j--;
+                }
+                entries[j + 1] = entry;
+                keys[j + 1] = key;
+            }
+        }
+
+        private void swap(int i, int j) {
+            Entry entry = entries[i];
+            entries[i] = entries[j];
+            entries[j] = entry;
+
+            byte[] key = keys[i];
+            keys[i] = keys[j];
+            keys[j] = key;
+        }
+
+        // the first 'depth' bytes are already known to be equal
+        private static int compareFrom(byte[] a, byte[] b, int depth) {
+            return Arrays.compareUnsigned(a, depth, a.length, b, depth, b.length);
+        }
+    }
+}
+
 // HASH TABLE
 
 class TableEntry<T> {
@@ -573,6 +965,623 @@ class HashTable<T> {
     }
 }
 
+// SHARDING
+
+enum PartitionType {HASH, RANGE}
+
+class ShardedDirectory implements AutoCloseable {
+    private static final int RANGE_SAMPLES_PER_SHARD = 1000;
+
+    private final Directory source;
+    private final PartitionType partitionType;
+    private final boolean separateProcesses;
+    private final Shard[] shards;
+    private final ExecutorService executor;
+    private byte[][] upperBounds = new byte[0][]; // exclusive sort keys, one per shard but the last
+    private boolean built = false;
+
+    public ShardedDirectory(Directory source, int shardCount,
+                            PartitionType partitionType, boolean separateProcesses) {
+        this.source = source;
+        this.partitionType = partitionType;
+        this.separateProcesses = separateProcesses;
+        shards = new Shard[Math.max(1, shardCount)];
+        executor = Executors.newFixedThreadPool(shards.length);
+    }
+
+    public String description() {
+        return "sharded: " + shards.length + " " + partitionType.name().toLowerCase()
+                + (separateProcesses ? " process" : "") + " shards + binary search";
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    // split the source entries and sort every shard at the same time
+    public void build() {
+        // a rebuild replaces the shards, so release the old ones first
+        built = false;
+        closeShards();
+
+        if (partitionType == PartitionType.RANGE) {
+            upperBounds = rangeBounds(source.getEntries(), shards.length);
+        }
+
+        List<List<Entry>> parts = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++) {
+            parts.add(new ArrayList<>());
+        }
+        for (Entry entry : source.getEntries()) {
+            parts.get(shardFor(entry.getName(), entry.getSortKey())).add(entry);
+        }
+
+        List<Future<Shard>> builds = new ArrayList<>();
+        for (List<Entry> part : parts) {
+            builds.add(executor.submit(() -> {
+                Shard shard = separateProcesses ? new RemoteShard(part) : new LocalShard(part);
+                try {
+                    shard.build();
+                } catch (RuntimeException e) {
+                    shard.close();
+                    throw e;
+                }
+                return shard;
+            }));
+        }
+
+        // wait for every build, so that no started shard is left behind on failure
+        List<Shard> completed = new ArrayList<>();
+        IllegalStateException failure = null;
+        for (Future<Shard> build : builds) {
+            try {
+                completed.add(await(build));
+            } catch (IllegalStateException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+
+        if (failure != null) {
+            for (Shard shard : completed) {
+                shard.close();
+            }
+            throw failure;
+        }
+        completed.toArray(shards);
+        built = true;
+    }
 
+    public boolean isListed(Person person) {
+        checkBuilt();
+        return shards[shardFor(person.getName(), person.getSortKey())].isListed(person);
+    }
 
+    // scatter a batch to the owning shards and sum the hits
+    public int countListed(List<Person> people) {
+        checkBuilt();
+        List<List<Person>> batches = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++) {
+            batches.add(new ArrayList<>());
+        }
+        for (Person person : people) {
+            batches.get(shardFor(person.getName(), person.getSortKey())).add(person);
+        }
 
+        List<Future<Integer>> counts = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++) {
+            Shard shard = shards[i];
+            List<Person> batch = batches.get(i);
+            counts.add(executor.submit(() -> batch.isEmpty() ? 0 : shard.countListed(batch)));
+        }
+
+        int found = 0;
+        for (Integer count : gather(counts)) {
+            found += count;
+        }
+        return found;
+    }
+
+    // a prefix matches letters only, ignoring case, accents and punctuation
+    // (see NameKey.primaryOf); any shard may hold a match, so ask all of them
+    public List<String> namesWithPrefix(String prefix) {
+        checkBuilt();
+        byte[] prefixKey = NameKey.primaryOf(prefix);
+
+        List<Future<List<Entry>>> parts = new ArrayList<>();
+        for (Shard shard : shards) {
+            parts.add(executor.submit(() -> shard.entriesWithPrefix(prefixKey)));
+        }
+        return merge(gather(parts));
+    }
+
+    // each shard answers in key order, so merge the answers by their heads
+    private static List<String> merge(List<List<Entry>> parts) {
+        int[] next = new int[parts.size()];
+        PriorityQueue<Integer> heads = new PriorityQueue<>((a, b) -> NameKey.compare(
+                parts.get(a).get(next[a]).getSortKey(), parts.get(b).get(next[b]).getSortKey()));
+        for (int i = 0; i < parts.size(); i++) {
+            if (!parts.get(i).isEmpty()) {
+                heads.add(i);
+            }
+        }
+
+        List<String> names = new ArrayList<>();
+        while (!heads.isEmpty()) {
+            int part = heads.poll();
+            names.add(parts.get(part).get(next[part]++).getName());
+            if (next[part] < parts.get(part).size()) {
+                heads.add(part);
+            }
+        }
+        return names;
+    }
+
+    private void checkBuilt() {
+        if (!built) {
+            throw new IllegalStateException("Shards not built");
+        }
+    }
+
+    int shardFor(String name, byte[] sortKey) {
+        if (partitionType == PartitionType.HASH) {
+            return Math.floorMod(name.hashCode(), shards.length);
+        }
+
+        // first shard whose upper bound is above the name
+        int left = 0;
+        int right = upperBounds.length;
+        while (left < right) {
+            int mid = left + (right - left) / 2;
+            if (NameKey.compare(sortKey, upperBounds[mid]) < 0) {
+                right = mid;
+            } else {
+                left = mid + 1;
+            }
+        }
+        return left;
+    }
+
+    private static byte[][] rangeBounds(List<Entry> entries, int shardCount) {
+        // sample evenly spaced names and use their quantiles as split points
+        int step = Math.max(1, entries.size() / (shardCount * RANGE_SAMPLES_PER_SHARD));
+        List<Entry> sample = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i += step) {
+            sample.add(entries.get(i));
+        }
+        sample.sort(Entry::compareName);
+
+        byte[][] bounds = new byte[sample.isEmpty() ? 0 : shardCount - 1][];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = sample.get((i + 1) * sample.size() / shardCount).getSortKey();
+        }
+        return bounds;
+    }
+
+    private static <T> List<T> gather(List<Future<T>> futures) {
+        List<T> results = new ArrayList<>();
+        for (Future<T> future : futures) {
+            results.add(await(future));
+        }
+        return results;
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for shards", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Shard failed", e.getCause());
+        }
+    }
+
+    private void closeShards() {
+        for (int i = 0; i < shards.length; i++) {
+            if (shards[i] != null) {
+                shards[i].close();
+                shards[i] = null;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        closeShards();
+    }
+} // end ShardedDirectory
+
+interface Shard extends AutoCloseable {
+    void build();
+    boolean isListed(Person person);
+    int countListed(List<Person> people);
+    List<Entry> entriesWithPrefix(byte[] prefixKey); // in key order
+
+    @Override
+    void close();
+}
+
+class LocalShard implements Shard {
+    private final Directory directory;
+    private final SearchMethod searchMethod = new BinarySearch();
+
+    public LocalShard(List<Entry> entries) {
+        directory = new Directory(entries);
+    }
+
+    @Override
+    public void build() {
+        // sort in place, without writing the shard out to a file
+        new QuickSort().sort(directory, Long.MAX_VALUE);
+    }
+
+    @Override
+    public boolean isListed(Person person) {
+        return searchMethod.isListed(directory, person);
+    }
+
+    @Override
+    public int countListed(List<Person> people) {
+        int found = 0;
+        for (Person person : people) {
+            if (isListed(person)) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public List<Entry> entriesWithPrefix(byte[] prefixKey) {
+        List<Entry> entries = directory.getEntries();
+
+        // the first key not below the prefix starts the run of matches
+        int left = 0;
+        int right = entries.size();
+        while (left < right) {
+            int mid = left + (right - left) / 2;
+            if (NameKey.compare(entries.get(mid).getSortKey(), prefixKey) < 0) {
+                left = mid + 1;
+            } else {
+                right = mid;
+            }
+        }
+
+        List<Entry> found = new ArrayList<>();
+        for (int i = left; i < entries.size() && NameKey.startsWith(entries.get(i).getSortKey(), prefixKey); i++) {
+            found.add(entries.get(i));
+        }
+        return found;
+    }
+
+    @Override
+    public void close() {
+    }
+}
+
+// A shard held by a separate JVM, reached over a loopback socket
+class RemoteShard implements Shard {
+    // the longest a shard may take to answer, sorting included
+    private static final int RESPONSE_TIMEOUT = 300_000;
+
+    private final Process process;
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    public RemoteShard(List<Entry> entries) {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        try {
+            process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    ShardServer.class.getName())
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not start shard process", e);
+        }
+
+        Socket connection = null;
+        try {
+            int port = readPort(process);
+            connection = new Socket();
+            connection.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                    ShardServer.START_TIMEOUT);
+            connection.setSoTimeout(RESPONSE_TIMEOUT);
+            in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+
+            out.writeByte(ShardServer.LOAD);
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                out.writeUTF(entry.getPhoneNumber());
+                out.writeUTF(entry.getName());
+            }
+            out.flush();
+            socket = connection;
+        } catch (IOException | RuntimeException e) {
+            // don't leave the server waiting for a client that never comes
+            closeQuietly(connection);
+            process.destroy();
+            if (e instanceof IOException) {
+                throw new UncheckedIOException("Could not connect to shard process", (IOException) e);
+            }
+            throw (RuntimeException) e;
+        }
+    }
+
+    // the server announces its port on the first line of output; read it on
+    // another thread so a shard that hangs while starting can't block us
+    private static int readPort(Process process) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        FutureTask<String> firstLine = new FutureTask<>(reader::readLine);
+        Thread handshake = new Thread(firstLine, "shard-handshake");
+        handshake.setDaemon(true);
+        handshake.start();
+
+        String port;
+        try {
+            port = firstLine.get(ShardServer.START_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new IOException("Shard process did not start in time", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not read shard port", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while starting shard process", e);
+        }
+
+        if (port == null) {
+            throw new IOException("Shard process exited before listening");
+        }
+        return Integer.parseInt(port.trim());
+    }
+
+    private static void closeQuietly(Socket connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                System.out.println("Problem closing shard connection.");
+            }
+        }
+    }
+
+    @Override
+    public synchronized void build() {
+        try {
+            out.writeByte(ShardServer.BUILD);
+            out.flush();
+            in.readBoolean();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized boolean isListed(Person person) {
+        try {
+            out.writeByte(ShardServer.FIND);
+            out.writeUTF(person.getName());
+            out.flush();
+            return in.readBoolean();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized int countListed(List<Person> people) {
+        try {
+            out.writeByte(ShardServer.COUNT);
+            out.writeInt(people.size());
+            for (Person person : people) {
+                out.writeUTF(person.getName());
+            }
+            out.flush();
+            return in.readInt();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized List<Entry> entriesWithPrefix(byte[] prefixKey) {
+        try {
+            out.writeByte(ShardServer.PREFIX);
+            out.writeInt(prefixKey.length);
+            out.write(prefixKey);
+            out.flush();
+
+            // keys come along with the names, so they aren't computed again here
+            int count = in.readInt();
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String phoneNumber = in.readUTF();
+                String name = in.readUTF();
+                byte[] sortKey = new byte[in.readInt()];
+                in.readFully(sortKey);
+                entries.add(new Entry(new Person(name, sortKey), phoneNumber));
+            }
+            return entries;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            out.writeByte(ShardServer.QUIT);
+            out.flush();
+            socket.close();
+        } catch (IOException e) {
+            System.out.println("Problem closing shard connection.");
+        }
+        process.destroy();
+    }
+}
+
+// Entry point of a shard process: serves one LocalShard to one client
+class ShardServer {
+    static final int LOAD = 1;
+    static final int BUILD = 2;
+    static final int FIND = 3;
+    static final int COUNT = 4;
+    static final int PREFIX = 5;
+    static final int QUIT = 6;
+
+    // how long starting up may take on either side of the connection
+    static final int START_TIMEOUT = 30_000;
+
+    public static void main(String[] args) throws IOException {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            // give up rather than wait forever for a client that has gone
+            server.setSoTimeout(START_TIMEOUT);
+            System.out.println(server.getLocalPort());
+            System.out.flush();
+
+            try (Socket socket = server.accept()) {
+                serve(new DataInputStream(new BufferedInputStream(socket.getInputStream())),
+                        new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())));
+            }
+        }
+    }
+
+    private static void serve(DataInputStream in, DataOutputStream out) throws IOException {
+        LocalShard shard = new LocalShard(new ArrayList<>());
+
+        while (true) {
+            int command = in.readByte();
+            switch (command) {
+                case LOAD:
+                    int size = in.readInt();
+                    List<Entry> entries = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        String phoneNumber = in.readUTF();
+                        entries.add(new Entry(new Person(in.readUTF()), phoneNumber));
+                    }
+                    shard = new LocalShard(entries);
+                    break;
+                case BUILD:
+                    shard.build();
+                    out.writeBoolean(true);
+                    break;
+                case FIND:
+                    out.writeBoolean(shard.isListed(new Person(in.readUTF())));
+                    break;
+                case COUNT:
+                    int count = in.readInt();
+                    List<Person> people = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        people.add(new Person(in.readUTF()));
+                    }
+                    out.writeInt(shard.countListed(people));
+                    break;
+                case PREFIX:
+                    byte[] prefixKey = new byte[in.readInt()];
+                    in.readFully(prefixKey);
+                    List<Entry> found = shard.entriesWithPrefix(prefixKey);
+                    out.writeInt(found.size());
+                    for (Entry entry : found) {
+                        out.writeUTF(entry.getPhoneNumber());
+                        out.writeUTF(entry.getName());
+                        out.writeInt(entry.getSortKey().length);
+                        out.write(entry.getSortKey());
+                    }
+                    break;
+                case QUIT:
+                default:
+                    return;
+            }
+            out.flush();
+        }
+    }
+} // end ShardServer
+
+// BENCHMARK
+
+// Times QuickSort against RadixSort on generated directories:
+// SortBenchmark [size...] (defaults to 1M and 10M entries)
+class SortBenchmark {
+    // common first names, most frequent first
+    private static final String[] FIRST_NAMES = {
+            "James", "Mary", "John", "Patricia", "Robert", "Jennifer", "Michael", "Linda",
+            "William", "Elizabeth", "David", "Barbara", "Richard", "Susan", "Joseph", "Jessica",
+            "Thomas", "Sarah", "Charles", "Karen", "Christopher", "Nancy", "Daniel", "Lisa",
+            "Matthew", "Betty", "Anthony", "Margaret", "Mark", "Sandra", "Donald", "Ashley",
+            "Steven", "Kimberly", "Paul", "Emily", "Andrew", "Donna", "Joshua", "Michelle",
+            "José", "María", "Zoë", "Renée", "André", "Chloé", "Søren", "Björn"
+    };
+    private static final String[] SURNAME_PARTS = {
+            "ander", "son", "mill", "er", "john", "wood", "ridge", "mac", "ford", "ham",
+            "row", "ley", "wil", "li", "am", "gar", "ci", "a", "rod", "ri", "guez",
+            "mar", "tin", "ez", "her", "nan", "de", "lo", "pez", "gon", "za", "les",
+            "berg", "stein", "ström", "müll", "dah", "ne", "ke", "vic"
+    };
+
+    public static void main(String[] args) {
+        int[] sizes = args.length > 0
+                ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+                : new int[] {1_000_000, 10_000_000};
+
+        // let the JIT compile both sorts before timing them
+        List<Entry> warmup = generate(100_000, new Random(0));
+        for (int i = 0; i < 3; i++) {
+            time(new QuickSort(), new Directory(new ArrayList<>(warmup)));
+            time(new RadixSort(), new Directory(new ArrayList<>(warmup)));
+        }
+
+        for (int size : sizes) {
+            List<Entry> entries = generate(size, new Random(size));
+
+            Directory quick = new Directory(new ArrayList<>(entries));
+            long quickTime = time(new QuickSort(), quick);
+
+            Directory radix = new Directory(new ArrayList<>(entries));
+            long radixTime = time(new RadixSort(), radix);
+
+            for (int i = 0; i < size; i++) {
+                if (quick.getEntries().get(i).compareName(radix.getEntries().get(i)) != 0) {
+                    System.out.println("Error: sorts disagree at index " + i);
+                    return;
+                }
+            }
+
+            System.out.printf("%,d entries: quick sort %d ms, radix sort %d ms (%.1fx, %d cores)\n",
+                    size, quickTime, radixTime, (double) quickTime / Math.max(1, radixTime),
+                    Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    private static long time(SortMethod method, Directory directory) {
+        long start = System.currentTimeMillis();
+        method.sort(directory, Long.MAX_VALUE);
+        return System.currentTimeMillis() - start;
+    }
+
+    // skewed towards the first names of the pool, like a real phone book
+    private static List<Entry> generate(int size, Random random) {
+        List<Entry> entries = new ArrayList<>(size);
+        StringBuilder name = new StringBuilder();
+
+        for (int i = 0; i < size; i++) {
+            name.setLength(0);
+            int first = (int) (FIRST_NAMES.length * Math.pow(random.nextDouble(), 2));
+            name.append(FIRST_NAMES[first]).append(' ');
+
+            int parts = 2 + random.nextInt(3);
+            for (int p = 0; p < parts; p++) {
+                String part = SURNAME_PARTS[random.nextInt(SURNAME_PARTS.length)];
+                name.append(p == 0 ? Character.toUpperCase(part.charAt(0)) + part.substring(1) : part);
+            }
+
+            Entry entry = new Entry(new Person(name.toString()), String.valueOf(1_000_000 + i));
+            entry.getSortKey(); // both sorts share the entries, so neither pays for the keys
+            entries.add(entry);
+        }
+        return entries;
+    }
+} // end SortBenchmark
@@ -0,0 +1,121 @@
+package phonebook;
+
+import org.junit.Test;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NameOrderTest {
+
+    private static Directory directory(String... names) {
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < names.length; i++) {
+            entries.add(new Entry(new Person(names[i]), String.valueOf(i)));
+        }
+        return new Directory(entries);
+    }
+
+    private static List<String> names(Directory directory) {
+        List<String> names = new ArrayList<>();
+        for (Entry entry : directory.getEntries()) {
+            names.add(entry.getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void sortsIgnoreCaseAndAccentsBeforeBreakingTies() {
+        List<String> expected = Arrays.asList("adam Smith", "Adam smith", "Édith Piaf", "Emile Bernard",
+                "émile Zola", "Otto Y", "Ötzi X", "zachary Q", "Zoe Adams");
+
+        for (SortMethod method : new SortMethod[] {new QuickSort(), new BubbleSort(), new RadixSort()}) {
+            Directory directory = directory("Zoe Adams", "émile Zola", "Emile Bernard", "adam Smith",
+                    "Édith Piaf", "Adam smith", "Ötzi X", "Otto Y", "zachary Q");
+            method.sort(directory, Long.MAX_VALUE);
+
+            assertEquals(method.getClass().getSimpleName(), expected, names(directory));
+        }
+    }
+
+    @Test
+    public void compactKeysKeepTheCollatorKeyOrder() {
+        Collator collator = Collator.getInstance();
+        collator.setStrength(Collator.TERTIARY);
+        collator.setDecomposition(Collator.CANONICAL_DECOMPOSITION);
+
+        String[] parts = {"a", "A", "á", "Á", "é", " ", "-", "ß", "Ø", "ж", "中", "\u0001", "b", "z"};
+        Random random = new Random(1);
+        for (int i = 0; i < 20_000; i++) {
+            String a = randomName(parts, random);
+            String b = randomName(parts, random);
+            CollationKey keyA = collator.getCollationKey(a);
+            CollationKey keyB = collator.getCollationKey(b);
+
+            assertEquals(a + " / " + b, Integer.signum(keyA.compareTo(keyB)),
+                    Integer.signum(NameKey.compare(NameKey.of(a), NameKey.of(b))));
+        }
+
+        assertTrue(NameKey.of("James Anderson").length
+                < collator.getCollationKey("James Anderson").toByteArray().length / 2);
+    }
+
+    private static String randomName(String[] parts, Random random) {
+        StringBuilder name = new StringBuilder();
+        int length = random.nextInt(5);
+        for (int i = 0; i < length; i++) {
+            name.append(parts[random.nextInt(parts.length)]);
+        }
+        return name.toString();
+    }
+
+    @Test
+    public void equalKeysStillNeedTheExactName() {
+        // same sort key as "Renée Smith" and "Ann", but different names
+        String decomposed = "Rene\u0301e Smith";
+        String withIgnorable = "Ann\u0001";
+        assertEquals(0, NameKey.compare(NameKey.of(decomposed), NameKey.of("Renée Smith")));
+        assertEquals(0, NameKey.compare(NameKey.of(withIgnorable), NameKey.of("Ann")));
+
+        List<String> queries = Arrays.asList(decomposed, "Renée Smith", withIgnorable, "Ann",
+                "Bob Brown", "Nobody");
+
+        Directory linear = directory(decomposed, "Bob Brown", withIgnorable, "Carl", "Aaron");
+        Directory jump = directory(decomposed, "Bob Brown", withIgnorable, "Carl", "Aaron");
+        new BubbleSort().sort(jump, Long.MAX_VALUE);
+        Directory binary = directory(decomposed, "Bob Brown", withIgnorable, "Carl", "Aaron");
+        new QuickSort().sort(binary, Long.MAX_VALUE);
+        Directory hash = directory(decomposed, "Bob Brown", withIgnorable, "Carl", "Aaron");
+        new HashSort().sort(hash, Long.MAX_VALUE);
+
+        for (String query : queries) {
+            Person person = new Person(query);
+            boolean expected = new LinearSearch().isListed(linear, person);
+
+            assertEquals("jump " + query, expected, new JumpSearch().isListed(jump, person));
+            assertEquals("binary " + query, expected, new BinarySearch().isListed(binary, person));
+            assertEquals("hash " + query, expected, new HashSearch().isListed(hash, person));
+        }
+    }
+
+    @Test
+    public void searchesScanTheWholeRunOfEqualKeys() {
+        // already in order; the jump lands on "Ann\u0001" just before "Ann"
+        Directory directory = directory("Aaron", "Abe", "Adam", "Ann\u0001", "Ann",
+                "Bob", "Carl", "Dan", "Eve");
+
+        assertTrue(new JumpSearch().isListed(directory, new Person("Ann")));
+        assertTrue(new JumpSearch().isListed(directory, new Person("Ann\u0001")));
+        assertTrue(new BinarySearch().isListed(directory, new Person("Ann")));
+        assertTrue(new BinarySearch().isListed(directory, new Person("Ann\u0001")));
+        assertFalse(new JumpSearch().isListed(directory, new Person("Ann\u0002")));
+        assertFalse(new BinarySearch().isListed(directory, new Person("Ann\u0002")));
+    }
+}
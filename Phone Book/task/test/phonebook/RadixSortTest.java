@@ -0,0 +1,54 @@
+package phonebook;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RadixSortTest {
+
+    private static Directory directory(int size, Random random) {
+        String[] parts = {"Ann", "anne", "Émile", "emile", "Smith", "smyth", " ", "-", "Ö", "o"};
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            StringBuilder name = new StringBuilder();
+            int length = random.nextInt(6);
+            for (int p = 0; p < length; p++) {
+                name.append(parts[random.nextInt(parts.length)]);
+            }
+            entries.add(new Entry(new Person(name.toString()), String.valueOf(i)));
+        }
+        return new Directory(entries);
+    }
+
+    private static void assertSortsLikeQuickSort(int size) {
+        Directory radix = directory(size, new Random(size));
+        Directory quick = directory(size, new Random(size));
+
+        new RadixSort().sort(radix, Long.MAX_VALUE);
+        new QuickSort().sort(quick, Long.MAX_VALUE);
+
+        assertTrue(radix.isSorted());
+        for (int i = 0; i < size; i++) {
+            assertEquals("index " + i, 0,
+                    radix.getEntries().get(i).compareName(quick.getEntries().get(i)));
+        }
+    }
+
+    @Test
+    public void sortsSmallDirectories() {
+        assertSortsLikeQuickSort(0);
+        assertSortsLikeQuickSort(1);
+        assertSortsLikeQuickSort(17);
+        assertSortsLikeQuickSort(500);
+    }
+
+    @Test
+    public void sortsBucketedDirectories() {
+        assertSortsLikeQuickSort(20_000);
+    }
+}
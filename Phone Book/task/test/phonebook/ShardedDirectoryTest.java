@@ -0,0 +1,174 @@
+package phonebook;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ShardedDirectoryTest {
+    private static final int SHARDS = 4;
+
+    private static List<String> names() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            names.add("Name " + (i * 7919 % 2000));
+        }
+        names.addAll(Arrays.asList("Anna Smith", "Anne Jones", "Annabel Lee", "Bob Brown", "Ånn-Marie Dahl"));
+        return names;
+    }
+
+    private static Directory directory(List<String> names) {
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            entries.add(new Entry(new Person(names.get(i)), String.valueOf(i)));
+        }
+        return new Directory(entries);
+    }
+
+    private static List<Person> people(String... names) {
+        List<Person> people = new ArrayList<>();
+        for (String name : names) {
+            people.add(new Person(name));
+        }
+        return people;
+    }
+
+    @Test
+    public void hashRoutingIsStableAndInRange() {
+        try (ShardedDirectory sharded = new ShardedDirectory(
+                directory(names()), SHARDS, PartitionType.HASH, false)) {
+            sharded.build();
+
+            boolean[] used = new boolean[SHARDS];
+            for (String name : names()) {
+                Person person = new Person(name);
+                int shard = sharded.shardFor(name, person.getSortKey());
+                assertTrue(shard >= 0 && shard < SHARDS);
+                assertEquals(shard, sharded.shardFor(name, person.getSortKey()));
+                assertTrue(name, sharded.isListed(person));
+                used[shard] = true;
+            }
+            for (boolean shardUsed : used) {
+                assertTrue(shardUsed);
+            }
+        }
+    }
+
+    @Test
+    public void rangeRoutingFollowsNameOrder() {
+        List<String> names = names();
+        try (ShardedDirectory sharded = new ShardedDirectory(
+                directory(names), SHARDS, PartitionType.RANGE, false)) {
+            sharded.build();
+
+            List<Person> people = people(names.toArray(new String[0]));
+            people.sort((a, b) -> NameKey.compare(a.getSortKey(), b.getSortKey()));
+
+            int previous = 0;
+            for (Person person : people) {
+                int shard = sharded.shardFor(person.getName(), person.getSortKey());
+                assertTrue(person.getName(), shard >= previous);
+                assertTrue(person.getName(), sharded.isListed(person));
+                previous = shard;
+            }
+            assertEquals(SHARDS - 1, previous);
+        }
+    }
+
+    @Test
+    public void countListedGathersFromEveryShard() {
+        for (PartitionType type : PartitionType.values()) {
+            try (ShardedDirectory sharded = new ShardedDirectory(directory(names()), SHARDS, type, false)) {
+                sharded.build();
+
+                List<Person> people = people(names().toArray(new String[0]));
+                people.add(new Person("Nobody Here"));
+                assertEquals(type.name(), names().size(), sharded.countListed(people));
+                assertFalse(sharded.isListed(new Person("Nobody Here")));
+            }
+        }
+    }
+
+    @Test
+    public void namesWithPrefixAreGatheredInNameOrder() {
+        List<String> expected = Arrays.asList("Annabel Lee", "Anna Smith", "Anne Jones", "Ånn-Marie Dahl");
+
+        for (PartitionType type : PartitionType.values()) {
+            try (ShardedDirectory sharded = new ShardedDirectory(directory(names()), SHARDS, type, false)) {
+                sharded.build();
+
+                assertEquals(type.name(), expected, sharded.namesWithPrefix("Ann"));
+                assertEquals(type.name(), expected, sharded.namesWithPrefix("ann"));
+                assertEquals(Arrays.asList("Ånn-Marie Dahl"), sharded.namesWithPrefix("annm"));
+                assertEquals(Arrays.asList("Anna Smith"), sharded.namesWithPrefix("Anna S"));
+                assertEquals(11, sharded.namesWithPrefix("Name 199").size());
+                assertTrue(sharded.namesWithPrefix("Zed").isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void rebuildReplacesShards() {
+        try (ShardedDirectory sharded = new ShardedDirectory(
+                directory(names()), SHARDS, PartitionType.HASH, false)) {
+            sharded.build();
+            sharded.build();
+
+            assertEquals(3, sharded.countListed(people("Anna Smith", "Bob Brown", "Name 5")));
+        }
+    }
+
+    @Test
+    public void processShardsAnswerLikeLocalShards() {
+        for (PartitionType type : PartitionType.values()) {
+            try (ShardedDirectory sharded = new ShardedDirectory(directory(names()), 2, type, true)) {
+                sharded.build();
+
+                assertTrue(sharded.isListed(new Person("Annabel Lee")));
+                assertFalse(sharded.isListed(new Person("Nobody Here")));
+                assertEquals(2, sharded.countListed(people("Anne Jones", "Name 1999", "Nobody Here")));
+                assertEquals(Arrays.asList("Annabel Lee", "Anna Smith", "Anne Jones", "Ånn-Marie Dahl"),
+                        sharded.namesWithPrefix("ann"));
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void queriesNeedBuiltShards() {
+        try (ShardedDirectory sharded = new ShardedDirectory(
+                directory(names()), SHARDS, PartitionType.HASH, false)) {
+            sharded.isListed(new Person("Anna Smith"));
+        }
+    }
+
+    @Test
+    public void failedBuildLeavesNoShardsToQuery() {
+        // shard processes can't start without the classes
+        String classPath = System.getProperty("java.class.path");
+        System.setProperty("java.class.path", "no-such-classpath");
+        try (ShardedDirectory sharded = new ShardedDirectory(
+                directory(names()), 2, PartitionType.HASH, true)) {
+            try {
+                sharded.build();
+                fail("build should fail");
+            } catch (RuntimeException expected) {
+                // the started shard processes are already closed
+            } finally {
+                System.setProperty("java.class.path", classPath);
+            }
+
+            try {
+                sharded.countListed(people("Anna Smith"));
+                fail("query should be rejected");
+            } catch (IllegalStateException expected) {
+                assertEquals("Shards not built", expected.getMessage());
+            }
+        }
+    }
+}